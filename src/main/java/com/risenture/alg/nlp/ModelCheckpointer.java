@@ -0,0 +1,302 @@
+package com.risenture.alg.nlp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Persists an online trained {@link NGramLanguageModel} without rewriting the whole model.
+ * A model directory holds
+ * <ul>
+ *   <li><code>model.bin</code> the base model and the last generation folded into it</li>
+ *   <li><code>checkpoint-N.bin</code> the training batches of generation N, summed by sequence</li>
+ *   <li><code>training-N.log</code> the {@link TrainingLog} of generation N</li>
+ * </ul>
+ * Every call to {@link #train(String[], int)} is logged before it is applied to the model.
+ * {@link #checkpoint()} turns finished log generations into checkpoints and
+ * {@link #compact()} folds checkpoints into the base model. Neither one reads the live
+ * model, so they never wait on training or scoring and a checkpoint costs only the
+ * changes it holds.
+ * <p>
+ * Training batches are applied to the model one at a time while holding the model's
+ * monitor. The Trie itself is not thread safe, so the live model is still not safe to
+ * read while it is being trained; readers must synchronize on {@link #getModel()} too.
+ * </p>
+ */
+public class ModelCheckpointer implements Closeable {
+
+  private static final String BASE_FILE = "model.bin";
+  private static final String LOG_PREFIX = "training-";
+  private static final String LOG_SUFFIX = ".log";
+  private static final String CHECKPOINT_PREFIX = "checkpoint-";
+  private static final String CHECKPOINT_SUFFIX = ".bin";
+
+  private final File dir;
+  private final NGramLanguageModel model;
+  // serializes checkpoint and compaction with each other, never with training
+  private final Object maintenanceLock = new Object();
+  private volatile TrainingLog log;
+  private long generation;
+
+  private ModelCheckpointer(File dir, NGramLanguageModel model, long generation)
+      throws IOException {
+    super();
+    this.dir = dir;
+    this.model = model;
+    this.generation = generation;
+    this.log = new TrainingLog(logFile(generation));
+  }
+
+  /**
+   * Open a model directory and recover the model.
+   * The base model is loaded, newer checkpoints are applied in order and the log
+   * tails are replayed. A new log generation is started for further training.
+   * @param dir model directory, created if it does not exist
+   * @param ngram N in a N-gram model, used when the directory has no base model yet
+   * @return a checkpointer of the recovered model
+   * @throws IOException throws IOException
+   */
+  public static ModelCheckpointer open(File dir, int ngram) throws IOException {
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Unable to create model directory " + dir);
+    }
+    File baseFile = new File(dir, BASE_FILE);
+    long baseGeneration = -1L;
+    NGramLanguageModel model;
+    if (baseFile.exists()) {
+      try (DataInputStream in = new DataInputStream(
+          new BufferedInputStream(new FileInputStream(baseFile)))) {
+        baseGeneration = in.readLong();
+        model = NGramLanguageModel.readFrom(in);
+      }
+    } else {
+      model = new NGramLanguageModel(ngram);
+    }
+
+    long lastGeneration = baseGeneration;
+    for (Map.Entry<Long, File> entry: generations(dir, CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX)
+        .entrySet()) {
+      if (entry.getKey() > baseGeneration) {
+        readCheckpoint(entry.getValue(), model);
+      }
+      lastGeneration = Math.max(lastGeneration, entry.getKey());
+    }
+    for (Map.Entry<Long, File> entry: generations(dir, LOG_PREFIX, LOG_SUFFIX).entrySet()) {
+      if (entry.getKey() > lastGeneration) {
+        TrainingLog.replay(entry.getValue(), model::train);
+      }
+      lastGeneration = Math.max(lastGeneration, entry.getKey());
+    }
+    return new ModelCheckpointer(dir, model, lastGeneration + 1);
+  }
+
+  public NGramLanguageModel getModel() {
+    return model;
+  }
+
+  /**
+   * Log a training batch, wait for it to be durable and apply it to the model.
+   * A sequence the Trie cannot take is rejected before it is logged.
+   * @param wordSeq sequence of words, none of them null or empty
+   * @param incr increment count by
+   * @throws IOException throws IOException
+   */
+  public void train(String[] wordSeq, int incr) throws IOException {
+    TrainingLog.checkWordSeq(wordSeq);
+    TrainingLog current;
+    long ticket;
+    synchronized (this) {
+      current = log;
+      ticket = current.enqueue(wordSeq, incr);
+    }
+    current.commit(ticket);
+    // group commit wakes many trainers at once, the Trie takes them one at a time
+    synchronized (model) {
+      model.train(wordSeq, incr);
+    }
+  }
+
+  /**
+   * Start a new log generation and write every finished generation as a checkpoint.
+   * Batches are summed by sequence, so a checkpoint is never larger than its log.
+   * @return number of checkpoints written
+   * @throws IOException throws IOException
+   */
+  public int checkpoint() throws IOException {
+    synchronized (maintenanceLock) {
+      TrainingLog finished;
+      synchronized (this) {
+        finished = log;
+        log = new TrainingLog(logFile(++generation));
+      }
+      finished.close();
+
+      int written = 0;
+      for (Map.Entry<Long, File> entry: generations(dir, LOG_PREFIX, LOG_SUFFIX).entrySet()) {
+        if (entry.getKey() >= generation) {
+          continue;
+        }
+        final Map<List<String>, Long> batches = new LinkedHashMap<>();
+        TrainingLog.replay(entry.getValue(), (wordSeq, incr) ->
+            batches.merge(Arrays.asList(wordSeq), (long)incr, Long::sum));
+        writeAtomically(checkpointFile(entry.getKey()), out -> {
+          out.writeInt(batches.size());
+          for (Map.Entry<List<String>, Long> batch: batches.entrySet()) {
+            out.writeLong(batch.getValue());
+            out.writeInt(batch.getKey().size());
+            for (String word: batch.getKey()) {
+              out.writeUTF(word);
+            }
+          }
+        });
+        Files.delete(entry.getValue().toPath());
+        ++written;
+      }
+      return written;
+    }
+  }
+
+  /**
+   * Fold every checkpoint into the base model file.
+   * The base model is loaded from disk rather than written from the live model,
+   * so training and scoring carry on while the new base model is built.
+   * @return number of checkpoints folded into the base model
+   * @throws IOException throws IOException
+   */
+  public int compact() throws IOException {
+    synchronized (maintenanceLock) {
+      Map<Long, File> checkpoints = generations(dir, CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX);
+      if (checkpoints.isEmpty()) {
+        return 0;
+      }
+      File baseFile = new File(dir, BASE_FILE);
+      long baseGeneration = -1L;
+      NGramLanguageModel base;
+      if (baseFile.exists()) {
+        try (DataInputStream in = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(baseFile)))) {
+          baseGeneration = in.readLong();
+          base = NGramLanguageModel.readFrom(in);
+        }
+      } else {
+        base = new NGramLanguageModel(model.getNgram());
+        base.setSeqLength(model.getSeqLength());
+      }
+
+      long lastGeneration = baseGeneration;
+      List<File> folded = new ArrayList<>();
+      for (Map.Entry<Long, File> entry: checkpoints.entrySet()) {
+        if (entry.getKey() > baseGeneration) {
+          readCheckpoint(entry.getValue(), base);
+        }
+        lastGeneration = Math.max(lastGeneration, entry.getKey());
+        folded.add(entry.getValue());
+      }
+
+      final long foldedGeneration = lastGeneration;
+      final NGramLanguageModel compacted = base;
+      writeAtomically(baseFile, out -> {
+        out.writeLong(foldedGeneration);
+        compacted.writeTo(out);
+      });
+      for (File file: folded) {
+        Files.delete(file.toPath());
+      }
+      return folded.size();
+    }
+  }
+
+  /**
+   * Commit pending training batches and close the current log.
+   * @throws IOException throws IOException
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (this) {
+      log.close();
+    }
+  }
+
+  private File logFile(long gen) {
+    return new File(dir, LOG_PREFIX + gen + LOG_SUFFIX);
+  }
+
+  private File checkpointFile(long gen) {
+    return new File(dir, CHECKPOINT_PREFIX + gen + CHECKPOINT_SUFFIX);
+  }
+
+  private static Map<Long, File> generations(File dir, String prefix, String suffix) {
+    Map<Long, File> generations = new TreeMap<>();
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return generations;
+    }
+    for (File file: files) {
+      String name = file.getName();
+      if (name.startsWith(prefix) && name.endsWith(suffix)) {
+        try {
+          long gen = Long.parseLong(
+              name.substring(prefix.length(), name.length() - suffix.length()));
+          generations.put(gen, file);
+        } catch (NumberFormatException e) {
+          // not one of ours
+        }
+      }
+    }
+    return generations;
+  }
+
+  private static void readCheckpoint(File file, NGramLanguageModel target) throws IOException {
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(file)))) {
+      int size = in.readInt();
+      for (int i = 0; i < size; ++i) {
+        long incr = in.readLong();
+        String[] wordSeq = new String[in.readInt()];
+        for (int j = 0; j < wordSeq.length; ++j) {
+          wordSeq[j] = in.readUTF();
+        }
+        // summed increments may exceed an int, apply them in int sized steps
+        while (incr > Integer.MAX_VALUE) {
+          target.train(wordSeq, Integer.MAX_VALUE);
+          incr -= Integer.MAX_VALUE;
+        }
+        target.train(wordSeq, (int)incr);
+      }
+    }
+  }
+
+  private interface Writer {
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  /**
+   * Write to a temporary file, force it to disk and rename it over the target,
+   * so a crash leaves either the old or the new file but never a partial one.
+   */
+  private static void writeAtomically(File target, Writer writer) throws IOException {
+    File tmp = new File(target.getParentFile(), target.getName() + ".tmp");
+    try (FileOutputStream fos = new FileOutputStream(tmp)) {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+      writer.write(out);
+      out.flush();
+      fos.getFD().sync();
+    }
+    Files.move(tmp.toPath(), target.toPath(),
+        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+}
@@ -9,6 +9,11 @@ import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 
 public class NGramLanguageModel implements Serializable {
 
@@ -25,12 +30,21 @@ public class NGramLanguageModel implements Serializable {
    * @param ngram N in a N-gram model
    */
   public NGramLanguageModel(int ngram) {
+    this(ngram, new WordSeqCounterTrie(ngram));
+  }
+
+  /**
+   * initializes an N-gram language model on top of an existing Trie.
+   * @param ngram N in a N-gram model
+   * @param wordSeqCounterTrie Trie which keeps the corpus of this language model
+   */
+  NGramLanguageModel(int ngram, WordSeqCounterTrie wordSeqCounterTrie) {
     super();
     seqLength = 15;
     this.ngram = ngram;
     this.lambdaFactor = ngram;
     this.uniformEstimate = 1.0 / (double)seqLength;
-    wordSeqCounterTrie = new WordSeqCounterTrie(ngram);
+    this.wordSeqCounterTrie = wordSeqCounterTrie;
   }
 
   public int getSeqLength() {
@@ -138,6 +152,103 @@ public class NGramLanguageModel implements Serializable {
     return mlEsitmate(newWordSeq);
   }
 
+  /**
+   * Probabilities of several words coming after the same sequence of words.
+   * Gives the same values as {@link #probability(String[], String)} for each word, but
+   * the estimate of the sequence itself and every context suffix of it are computed
+   * once, and the counts of each word are read from the children of those context nodes.
+   * @param wordSeq sequence of words
+   * @param words words which may follow the sequence
+   * @return probability of each word coming after the sequence, in the order of words
+   */
+  public double[] probabilities(String[] wordSeq, String[] words) {
+    Map<String, Double> byWord = probabilities(wordSeq, Arrays.asList(words), null);
+    double[] probabilities = new double[words.length];
+    for (int i = 0; i < words.length; ++i) {
+      probabilities[i] = byWord.get(words[i]);
+    }
+    return probabilities;
+  }
+
+  /**
+   * Probabilities of several words coming after the same sequence of words, optionally
+   * together with every word seen following the sequence in the Trie.
+   * Each context suffix of the sequence is navigated once for all the words.
+   * @param wordSeq sequence of words
+   * @param words words which may follow the sequence
+   * @param following if not null, receives the words seen following the sequence,
+   *     which are scored as well
+   * @return probability of each word coming after the sequence
+   */
+  public Map<String, Double> probabilities(String[] wordSeq, Collection<String> words,
+      Collection<String> following) {
+    Map<String, Double> probabilities = new LinkedHashMap<>();
+    int length = wordSeq.length;
+    if (length == 0) {
+      for (String word: words) {
+        probabilities.put(word, probability(wordSeq, word));
+      }
+      return probabilities;
+    }
+
+    // terms of the sequence itself do not depend on the following word
+    double prefixEstimate = mlEsitmate(wordSeq);
+
+    // conditional estimate of the word at position 'length', see condEstimate
+    int contextStart = Math.max(0, length + 1 - ngram);
+    TrieNode[] contexts = new TrieNode[length];
+    long[] contextCounts = new long[length];
+    for (int itrStart = contextStart; itrStart < length; ++itrStart) {
+      contexts[itrStart] = wordSeqCounterTrie.navigate(
+          Arrays.copyOfRange(wordSeq, itrStart, length));
+      contextCounts[itrStart] = contexts[itrStart] == null ? 0L : contexts[itrStart].contextCount();
+    }
+    TrieNode fullContext = contextStart == 0
+        ? contexts[0] : wordSeqCounterTrie.navigate(wordSeq);
+
+    Set<String> scored = new LinkedHashSet<>(words);
+    if (following != null && fullContext != null && fullContext.getChildren() != null) {
+      following.addAll(fullContext.getChildren().keySet());
+      scored.addAll(fullContext.getChildren().keySet());
+    }
+    for (String word: scored) {
+      TrieNode extension = child(fullContext, word);
+      double contextSize = extension == null || extension.getChildren() == null
+          ? 0.0 : extension.getChildren().size();
+
+      double condEstimate = uniformEstimate;
+      for (int itrStart = length; itrStart >= contextStart; --itrStart) {
+        long contextCount;
+        long count;
+        if (itrStart == length) {
+          // the shortest context is the word itself
+          TrieNode wordNode = wordSeqCounterTrie.navigate(new String[]{word});
+          contextCount = wordNode == null ? 0L : wordNode.contextCount();
+          count = wordNode == null ? 0L : wordNode.count();
+        } else {
+          contextCount = contextCounts[itrStart];
+          TrieNode node = child(contexts[itrStart], word);
+          count = node == null ? 0L : node.count();
+        }
+        if (contextCount == 0) {
+          continue;
+        }
+        double lambda = lambda(contextCount, contextSize, lambdaFactor);
+        condEstimate = lambda * (((double)count) / (double)contextCount)
+            + (1.0 - lambda) * condEstimate;
+      }
+      probabilities.put(word, prefixEstimate + log2(condEstimate));
+    }
+    return probabilities;
+  }
+
+  private static TrieNode child(TrieNode node, String word) {
+    if (node == null || node.getChildren() == null) {
+      return null;
+    }
+    return node.getChildren().get(word);
+  }
+
 
   /**
    * Simple estimate for a given sequence.
@@ -234,7 +345,6 @@ public class NGramLanguageModel implements Serializable {
 
     for (int itrStart = contextEnd; itrStart >= contextStart; --itrStart) {
       // Get the sum of counts of all extension sequences, whose has same context prefix
-      print(wordSeq, itrStart, contextEnd, end);
       long contextCount = wordSeqCounterTrie.contextCount(wordSeq,itrStart,contextEnd);
       if (contextCount == 0) {
         continue;
@@ -274,13 +384,6 @@ public class NGramLanguageModel implements Serializable {
     return base2Log;
   }
 
-  private void print(String[] wordSeq, int start, int contextEnd, int end) {
-    for (int i = start; i < end; i++ ) {
-      System.out.print(wordSeq[i] + " ");
-    }
-    System.out.println("]");
-    //System.out.print("ext:["+wordSeq[end]+"]");
-  }
 
 
 
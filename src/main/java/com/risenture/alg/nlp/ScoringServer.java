@@ -0,0 +1,356 @@
+package com.risenture.alg.nlp;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Embedded HTTP server scoring requests against a {@link NGramLanguageModel}.
+ * <ul>
+ *   <li><code>GET /probability?seq=She+is&amp;word=stupid</code> returns the probability</li>
+ *   <li><code>GET /topk?seq=She+is&amp;k=5</code> returns word and score lines</li>
+ * </ul>
+ * Exchanges are handled on one virtual thread each when the JDK has them, on a cached
+ * thread pool otherwise. Handlers only queue their request; a single batcher thread
+ * drains the queue and scores a whole batch in one pass, navigating each context once
+ * for all the requests after it. Both endpoints report
+ * {@link NGramLanguageModel#probability(String[], String)}. A full queue is rejected with
+ * 503 instead of queueing up latency, and requests whose client timed out are skipped.
+ * Each batch is scored holding the model's lock, so the model may be trained meanwhile
+ * through {@link ModelCheckpointer} or by callers synchronizing on it.
+ */
+public class ScoringServer implements Closeable {
+
+  private final NGramLanguageModel model;
+  private final HttpServer httpServer;
+  private final ExecutorService connectionExecutor;
+  private final BlockingQueue<Request> queue;
+  private final int maxBatchSize;
+  private final Thread batcher;
+  private final AtomicLong batchCount = new AtomicLong();
+  private final AtomicLong scoredCount = new AtomicLong();
+  private volatile long responseTimeoutMillis = 5000L;
+  private volatile boolean running;
+
+  /**
+   * Initializes a scoring server, call {@link #start()} to accept requests.
+   * @param model language model to score with
+   * @param address address to bind to, port 0 picks a free port
+   * @param queueCapacity max number of requests waiting to be scored
+   * @param maxBatchSize max number of requests scored in one pass
+   * @throws IOException throws IOException
+   */
+  public ScoringServer(NGramLanguageModel model, InetSocketAddress address,
+      int queueCapacity, int maxBatchSize) throws IOException {
+    super();
+    this.model = model;
+    this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    this.maxBatchSize = maxBatchSize;
+    this.connectionExecutor = newConnectionExecutor();
+    this.httpServer = HttpServer.create(address, 0);
+    this.httpServer.createContext("/probability", this::handleProbability);
+    this.httpServer.createContext("/topk", this::handleTopK);
+    this.httpServer.setExecutor(connectionExecutor);
+    this.batcher = new Thread(this::runBatcher, "ngram-scoring-batcher");
+    this.batcher.setDaemon(true);
+  }
+
+  /**
+   * Start accepting and scoring requests.
+   */
+  public void start() {
+    running = true;
+    batcher.start();
+    httpServer.start();
+  }
+
+  public int getPort() {
+    return httpServer.getAddress().getPort();
+  }
+
+  /**
+   * Time a request may wait to be scored before it is answered with 504.
+   * @param responseTimeoutMillis timeout in milliseconds
+   */
+  public void setResponseTimeoutMillis(long responseTimeoutMillis) {
+    this.responseTimeoutMillis = responseTimeoutMillis;
+  }
+
+  /**
+   * Number of batches scored.
+   */
+  long getBatchCount() {
+    return batchCount.get();
+  }
+
+  /**
+   * Number of requests waiting to be scored.
+   */
+  int getQueuedCount() {
+    return queue.size();
+  }
+
+  /**
+   * Number of requests answered by the batcher with a score.
+   */
+  long getScoredCount() {
+    return scoredCount.get();
+  }
+
+  /**
+   * Stop accepting requests and stop the batcher.
+   */
+  @Override
+  public void close() {
+    running = false;
+    httpServer.stop(0);
+    batcher.interrupt();
+    connectionExecutor.shutdownNow();
+  }
+
+  private static ExecutorService newConnectionExecutor() {
+    try {
+      Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService)method.invoke(null);
+    } catch (ReflectiveOperationException e) {
+      // virtual threads need JDK 21
+      return Executors.newCachedThreadPool();
+    }
+  }
+
+  private void handleProbability(HttpExchange exchange) throws IOException {
+    Map<String, String> params = params(exchange);
+    String seq = params.get("seq");
+    String word = params.get("word");
+    if (seq == null || word == null) {
+      respond(exchange, 400, "seq and word are required\n");
+      return;
+    }
+    submit(exchange, new Request(seq.split(" "), word, 0));
+  }
+
+  private void handleTopK(HttpExchange exchange) throws IOException {
+    Map<String, String> params = params(exchange);
+    String seq = params.get("seq");
+    int k;
+    try {
+      k = Integer.parseInt(params.getOrDefault("k", "10"));
+    } catch (NumberFormatException e) {
+      k = -1;
+    }
+    if (seq == null || k < 1) {
+      respond(exchange, 400, "seq and a positive k are required\n");
+      return;
+    }
+    submit(exchange, new Request(seq.split(" "), null, k));
+  }
+
+  private void submit(HttpExchange exchange, Request request) throws IOException {
+    if (!running) {
+      respond(exchange, 503, "server is stopping\n");
+      return;
+    }
+    if (!queue.offer(request)) {
+      exchange.getResponseHeaders().set("Retry-After", "1");
+      respond(exchange, 503, "scoring queue is full\n");
+      return;
+    }
+    if (!running && queue.remove(request)) {
+      // closed while offering, the batcher may have drained the queue already
+      respond(exchange, 503, "server is stopping\n");
+      return;
+    }
+    try {
+      respond(exchange, 200, request.result.get(responseTimeoutMillis, TimeUnit.MILLISECONDS));
+    } catch (TimeoutException e) {
+      // the batcher skips cancelled requests instead of scoring for a client gone away
+      request.result.cancel(false);
+      respond(exchange, 504, "scoring timed out\n");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IllegalArgumentException
+          || e.getCause() instanceof IndexOutOfBoundsException) {
+        respond(exchange, 400, "invalid word sequence\n");
+      } else if (e.getCause() instanceof IllegalStateException) {
+        respond(exchange, 503, "server is stopping\n");
+      } else {
+        respond(exchange, 500, "scoring failed\n");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      respond(exchange, 503, "server is stopping\n");
+    }
+  }
+
+  private void runBatcher() {
+    List<Request> batch = new ArrayList<>(maxBatchSize);
+    while (running) {
+      try {
+        Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        queue.drainTo(batch, maxBatchSize - 1);
+        batchCount.incrementAndGet();
+        score(batch);
+      } catch (InterruptedException e) {
+        break;
+      } catch (Throwable t) {
+        // fail this batch only, the batcher must outlive a bad batch
+        for (Request request: batch) {
+          request.result.completeExceptionally(t);
+        }
+      } finally {
+        batch.clear();
+      }
+    }
+    Request request;
+    while ((request = queue.poll()) != null) {
+      request.result.completeExceptionally(new IllegalStateException("server is stopping"));
+    }
+  }
+
+  /**
+   * Score a batch in one pass.
+   * Requests are grouped by context and each context is scored by one
+   * {@link NGramLanguageModel#probabilities(String[], Collection, Collection)} call, which
+   * navigates the context once for the words asked for by /probability and the /topk
+   * candidates alike.
+   * The model is locked for the batch, the same lock {@link ModelCheckpointer} trains under.
+   */
+  private void score(List<Request> batch) {
+    Map<List<String>, List<Request>> contexts = new LinkedHashMap<>();
+    for (Request request: batch) {
+      if (request.result.isDone()) {
+        continue;
+      }
+      List<String> context = Arrays.asList(request.wordSeq);
+      List<Request> requests = contexts.get(context);
+      if (requests == null) {
+        requests = new ArrayList<>();
+        contexts.put(context, requests);
+      }
+      requests.add(request);
+    }
+    synchronized (model) {
+      for (List<Request> requests: contexts.values()) {
+        try {
+          scoreContext(requests);
+        } catch (RuntimeException e) {
+          for (Request request: requests) {
+            request.result.completeExceptionally(e);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Score the requests for one context.
+   */
+  private void scoreContext(List<Request> requests) {
+    String[] wordSeq = requests.get(0).wordSeq;
+    Set<String> words = new LinkedHashSet<>();
+    boolean topK = false;
+    for (Request request: requests) {
+      if (request.word != null) {
+        words.add(request.word);
+      } else {
+        topK = true;
+      }
+    }
+    List<String> candidates = topK ? new ArrayList<String>() : null;
+    Map<String, Double> byWord = model.probabilities(wordSeq, words, candidates);
+    List<Map.Entry<String, Double>> ranked = new ArrayList<>();
+    if (topK) {
+      for (String word: candidates) {
+        ranked.add(new AbstractMap.SimpleImmutableEntry<>(word, byWord.get(word)));
+      }
+      ranked.sort(Map.Entry.<String, Double>comparingByValue(Comparator.reverseOrder()));
+    }
+    for (Request request: requests) {
+      String answer;
+      if (request.word != null) {
+        answer = byWord.get(request.word) + "\n";
+      } else {
+        StringBuilder sb = new StringBuilder();
+        int k = Math.min(request.k, ranked.size());
+        for (Map.Entry<String, Double> entry: ranked.subList(0, k)) {
+          sb.append(entry.getKey()).append('\t').append(entry.getValue()).append('\n');
+        }
+        answer = sb.toString();
+      }
+      if (request.result.complete(answer)) {
+        scoredCount.incrementAndGet();
+      }
+    }
+  }
+
+  private static Map<String, String> params(HttpExchange exchange)
+      throws UnsupportedEncodingException {
+    Map<String, String> params = new HashMap<>();
+    String query = exchange.getRequestURI().getRawQuery();
+    if (query == null) {
+      return params;
+    }
+    for (String pair: query.split("&")) {
+      int eq = pair.indexOf('=');
+      if (eq > 0) {
+        params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+            URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+      }
+    }
+    return params;
+  }
+
+  private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  private static final class Request {
+
+    private final String[] wordSeq;
+    private final String word;
+    private final int k;
+    private final CompletableFuture<String> result = new CompletableFuture<>();
+
+    Request(String[] wordSeq, String word, int k) {
+      this.wordSeq = wordSeq;
+      this.word = word;
+      this.k = k;
+    }
+  }
+}
@@ -0,0 +1,334 @@
+package com.risenture.alg.nlp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Multi word sentence completion on top of an {@link NGramLanguageModel}.
+ * Runs a bounded beam search directly over the children of the
+ * {@link WordSeqCounterTrie} instead of re-scoring full sequences for every
+ * candidate word.
+ * <p>
+ * This is a separate prefix-only maximum likelihood scorer, not the model's
+ * {@link NGramLanguageModel#probability(String[], String)}. The sequence must be a
+ * prefix of a trained statement, otherwise there are no completions. A word is scored
+ * by its count over the count of the whole prefix before it, without the N-gram window,
+ * interpolation or uniform estimate, so scores are not comparable to the model's.
+ * </p>
+ */
+public class SentenceCompleter {
+
+  private static final double LOG_OF_2 = Math.log(2.0);
+  // children visited between deadline checks while expanding a single node
+  private static final int CHECK_INTERVAL = 256;
+
+  private final WordSeqCounterTrie wordSeqCounterTrie;
+  private int beamWidth;
+  private double scoreThreshold;
+
+  /**
+   * Initializes a sentence completer for a language model.
+   * Default beam width is 8 and no score threshold is applied.
+   * @param model language model whose corpus is used for completions
+   */
+  public SentenceCompleter(NGramLanguageModel model) {
+    super();
+    this.wordSeqCounterTrie = model.getWordSeqCounterTrie();
+    this.beamWidth = 8;
+    this.scoreThreshold = Double.NEGATIVE_INFINITY;
+  }
+
+  public int getBeamWidth() {
+    return beamWidth;
+  }
+
+  /**
+   * Set the maximum number of hypotheses kept alive after each expansion step.
+   * @param beamWidth beam width, must be at least 1
+   */
+  public void setBeamWidth(int beamWidth) {
+    if (beamWidth < 1) {
+      String msg = "Beam width must be >= 1. Found beamWidth=" + beamWidth;
+      throw new IllegalArgumentException(msg);
+    }
+    this.beamWidth = beamWidth;
+  }
+
+  public double getScoreThreshold() {
+    return scoreThreshold;
+  }
+
+  /**
+   * Set the minimum log2 score a hypothesis must keep to stay in the beam.
+   * @param scoreThreshold log2 score threshold
+   */
+  public void setScoreThreshold(double scoreThreshold) {
+    this.scoreThreshold = scoreThreshold;
+  }
+
+  /**
+   * Return the top completions of a sequence of words.
+   * @param wordSeq sequence of words to complete
+   * @param maxWords max number of words appended to the sequence
+   * @param topN max number of completions returned
+   * @param timeBudgetMillis time budget for the search in milliseconds
+   * @return completions in the order of most probability
+   */
+  public Completion[] complete(String[] wordSeq, int maxWords, int topN, long timeBudgetMillis) {
+    return newQuery(wordSeq, maxWords, topN, timeBudgetMillis).run();
+  }
+
+  /**
+   * Create a completion query which can be run and cancelled separately.
+   * @param wordSeq sequence of words to complete
+   * @param maxWords max number of words appended to the sequence
+   * @param topN max number of completions returned
+   * @param timeBudgetMillis time budget for the search in milliseconds
+   * @return a completion query
+   */
+  public Query newQuery(String[] wordSeq, int maxWords, int topN, long timeBudgetMillis) {
+    if (maxWords < 1 || topN < 1) {
+      String msg = "maxWords and topN must be >= 1."
+          + " Found maxWords=" + maxWords
+          + " topN=" + topN;
+      throw new IllegalArgumentException(msg);
+    }
+    return new Query(wordSeq, maxWords, topN, timeBudgetMillis, beamWidth, scoreThreshold);
+  }
+
+  private static double log2(double estimate) {
+    return Math.log(estimate) / LOG_OF_2;
+  }
+
+  /**
+   * A single completion i.e. words following the given sequence and their log2 score.
+   */
+  public static final class Completion {
+
+    private final String[] words;
+    private final double score;
+
+    Completion(String[] words, double score) {
+      this.words = words;
+      this.score = score;
+    }
+
+    public String[] getWords() {
+      return words.clone();
+    }
+
+    public double getScore() {
+      return score;
+    }
+
+    @Override
+    public String toString() {
+      return String.join(" ", words) + " (" + score + ")";
+    }
+  }
+
+  /**
+   * A partial sequence in the beam.
+   * Hypotheses sharing a prefix share the parent chain, and the Trie node reached
+   * by the hypothesis is kept so expansion never navigates from the root again.
+   */
+  private static final class Hypothesis {
+
+    private final Hypothesis parent;
+    private final String word;
+    private final TrieNode node;
+    private final double score;
+    private final int depth;
+
+    Hypothesis(Hypothesis parent, String word, TrieNode node, double score) {
+      this.parent = parent;
+      this.word = word;
+      this.node = node;
+      this.score = score;
+      this.depth = parent == null ? 0 : parent.depth + 1;
+    }
+
+    Completion toCompletion(double finalScore) {
+      String[] words = new String[depth];
+      Hypothesis hyp = this;
+      for (int i = depth - 1; i >= 0; --i) {
+        words[i] = hyp.word;
+        hyp = hyp.parent;
+      }
+      return new Completion(words, finalScore);
+    }
+  }
+
+  private static final Comparator<Hypothesis> BY_SCORE =
+      (h1, h2) -> Double.compare(h1.score, h2.score);
+
+  private static final Comparator<Completion> COMPLETION_BY_SCORE =
+      (c1, c2) -> Double.compare(c1.score, c2.score);
+
+  /**
+   * A single beam search. The search stops once it is cancelled or its
+   * time budget runs out, returning the best completions found so far.
+   */
+  public final class Query {
+
+    private final String[] wordSeq;
+    private final int maxWords;
+    private final int topN;
+    private final long timeBudgetNanos;
+    private final int width;
+    private final double threshold;
+    private volatile boolean cancelled;
+    private volatile boolean timedOut;
+
+    Query(String[] wordSeq, int maxWords, int topN, long timeBudgetMillis,
+        int width, double threshold) {
+      this.wordSeq = wordSeq;
+      this.maxWords = maxWords;
+      this.topN = topN;
+      this.timeBudgetNanos = TimeUnit.MILLISECONDS.toNanos(timeBudgetMillis);
+      this.width = width;
+      this.threshold = threshold;
+    }
+
+    /**
+     * Cancel this query. A running search returns what it has found so far.
+     */
+    public void cancel() {
+      cancelled = true;
+    }
+
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+    /**
+     * Whether the last run stopped because its time budget ran out.
+     * @return true if the last run timed out
+     */
+    public boolean isTimedOut() {
+      return timedOut;
+    }
+
+    /**
+     * Run the beam search.
+     * @return completions in the order of most probability
+     */
+    public Completion[] run() {
+      final long deadline = System.nanoTime() + timeBudgetNanos;
+      timedOut = false;
+      TrieNode start = wordSeqCounterTrie.navigate(wordSeq);
+      if (start == null || start.isLeafNode()) {
+        return new Completion[0];
+      }
+
+      // min heap, the worst completion is on top to be evicted first
+      PriorityQueue<Completion> finished = new PriorityQueue<>(topN + 1, COMPLETION_BY_SCORE);
+      List<Hypothesis> beam = Collections.singletonList(new Hypothesis(null, null, start, 0.0));
+
+      for (int step = 0; step < maxWords && !beam.isEmpty(); ++step) {
+        PriorityQueue<Hypothesis> next = new PriorityQueue<>(width + 1, BY_SCORE);
+        for (Hypothesis hyp: beam) {
+          if (isExpired(deadline) || !expand(hyp, next, finished, deadline)) {
+            return drain(finished, beam);
+          }
+        }
+        beam = new ArrayList<>(next);
+      }
+      return drain(finished, beam);
+    }
+
+    private boolean isExpired(long deadline) {
+      if (cancelled) {
+        return true;
+      }
+      if (System.nanoTime() - deadline >= 0) {
+        timedOut = true;
+        return true;
+      }
+      return false;
+    }
+
+    /**
+     * Expand a hypothesis into the next beam.
+     * The deadline is checked every {@link #CHECK_INTERVAL} children, so a node with a
+     * large fanout cannot run past the time budget or ignore a cancellation.
+     * @return false if the query expired before the node was fully expanded
+     */
+    private boolean expand(Hypothesis hyp, PriorityQueue<Hypothesis> next,
+        PriorityQueue<Completion> finished, long deadline) {
+      Map<String, TrieNode> children = hyp.node.getChildren();
+      if (children == null) {
+        return true;
+      }
+      long contextCount = 0L;
+      int visited = 0;
+      for (TrieNode child: children.values()) {
+        if (++visited % CHECK_INTERVAL == 0 && isExpired(deadline)) {
+          return false;
+        }
+        contextCount += child.count();
+      }
+      // the sequences which end at this node make up the rest of its count
+      double total = Math.max(hyp.node.count(), contextCount);
+
+      if (hyp.depth > 0 && total > contextCount) {
+        offer(finished, hyp.toCompletion(hyp.score + log2((total - contextCount) / total)));
+      }
+      for (Map.Entry<String, TrieNode> entry: children.entrySet()) {
+        if (++visited % CHECK_INTERVAL == 0 && isExpired(deadline)) {
+          return false;
+        }
+        TrieNode child = entry.getValue();
+        double score = hyp.score + log2((double)child.count() / total);
+        if (!isViable(score, next, finished)) {
+          continue;
+        }
+        next.add(new Hypothesis(hyp, entry.getKey(), child, score));
+        if (next.size() > width) {
+          next.poll();
+        }
+      }
+      return true;
+    }
+
+    private boolean isViable(double score, PriorityQueue<Hypothesis> next,
+        PriorityQueue<Completion> finished) {
+      if (score < threshold) {
+        return false;
+      }
+      // scores only decrease with length, a hypothesis worse than a full result list is dead
+      if (finished.size() >= topN && score <= finished.peek().score) {
+        return false;
+      }
+      return next.size() < width || score > next.peek().score;
+    }
+
+    private void offer(PriorityQueue<Completion> finished, Completion completion) {
+      if (completion.score < threshold) {
+        return;
+      }
+      finished.add(completion);
+      if (finished.size() > topN) {
+        finished.poll();
+      }
+    }
+
+    private Completion[] drain(PriorityQueue<Completion> finished, List<Hypothesis> beam) {
+      // hypotheses still alive are returned as truncated completions
+      for (Hypothesis hyp: beam) {
+        if (hyp.depth > 0) {
+          offer(finished, hyp.toCompletion(hyp.score));
+        }
+      }
+      Completion[] completions = finished.toArray(new Completion[finished.size()]);
+      Arrays.sort(completions, Collections.reverseOrder(COMPLETION_BY_SCORE));
+      return completions;
+    }
+  }
+}
@@ -0,0 +1,369 @@
+package com.risenture.alg.nlp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persisted layout of a {@link NGramLanguageModel} with one shard per root of
+ * {@link WordSeqCounterTrie#rootContainer} and an index of shard offsets.
+ * A model opened from a store reads and deserializes a root shard on its first access,
+ * so opening costs only the header and index. Lookups in loaded shards take no lock;
+ * only loading, training a shard and eviction do.
+ * Under a shard bytes budget the least recently used shards are evicted again; shards
+ * changed by training since they were loaded are never evicted. The budget counts the
+ * size of shards on disk, a deserialized shard takes several times more heap.
+ * <pre>
+ * int magic, int version, int ngram, int seqLength, double uniformEstimate,
+ * int maxLength, int shardCount, shardCount * (int key, long offset, long length),
+ * shard data (a serialized {@link TrieNode} per shard)
+ * </pre>
+ */
+public class ShardedModelStore implements Closeable {
+
+  private static final int MAGIC = 0x4e47534d;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 32;
+  private static final int INDEX_ENTRY_SIZE = 20;
+
+  private final FileChannel channel;
+  // shard key -> {offset, length}
+  private final Map<Integer, long[]> index = new TreeMap<>();
+  // clean shards with their size on disk
+  private final Map<Integer, Long> loaded = new HashMap<>();
+  // last access time of loaded shards, updated without the store lock
+  private final Map<Integer, AtomicLong> lastAccess = new ConcurrentHashMap<>();
+  private final Set<Integer> dirty = new HashSet<>();
+  private final long shardBytesBudget;
+  private long loadedBytes;
+  private final NGramLanguageModel model;
+
+  private ShardedModelStore(File file, long shardBytesBudget) throws IOException {
+    super();
+    this.shardBytesBudget = shardBytesBudget;
+    this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try {
+      DataInputStream in = new DataInputStream(stream(0, channel.size()));
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Not a sharded model file " + file);
+      }
+      int version = in.readInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported sharded model version " + version);
+      }
+      int ngram = in.readInt();
+      int seqLength = in.readInt();
+      double uniformEstimate = in.readDouble();
+      int maxLength = in.readInt();
+      int shardCount = in.readInt();
+      for (int i = 0; i < shardCount; ++i) {
+        int key = in.readInt();
+        index.put(key, new long[]{in.readLong(), in.readLong()});
+      }
+      this.model = new NGramLanguageModel(ngram, new WordSeqCounterTrie(maxLength, this));
+      model.setSeqLength(seqLength);
+      model.setUniformEstimate(uniformEstimate);
+    } catch (IOException | RuntimeException e) {
+      // a short or corrupt file must not leak the channel
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Open a sharded model file, keeping every loaded shard in memory.
+   * @param file sharded model file
+   * @return an open store
+   * @throws IOException throws IOException
+   */
+  public static ShardedModelStore open(File file) throws IOException {
+    return open(file, Long.MAX_VALUE);
+  }
+
+  /**
+   * Open a sharded model file.
+   * @param file sharded model file
+   * @param shardBytesBudget on disk size of the clean shards kept loaded; the heap they
+   *     take is several times larger
+   * @return an open store
+   * @throws IOException throws IOException
+   */
+  public static ShardedModelStore open(File file, long shardBytesBudget) throws IOException {
+    return new ShardedModelStore(file, shardBytesBudget);
+  }
+
+  /**
+   * Write a model in the sharded layout.
+   * The file is written next to the target and renamed over it, so a store which has
+   * the target open keeps reading its old shards.
+   * @param model language model
+   * @param file sharded model file
+   * @throws IOException throws IOException
+   */
+  public static void write(NGramLanguageModel model, File file) throws IOException {
+    WordSeqCounterTrie trie = model.getWordSeqCounterTrie();
+    Set<Integer> keys = trie.rootKeys();
+    File tmp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+    try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+      raf.setLength(0);
+      raf.writeInt(MAGIC);
+      raf.writeInt(VERSION);
+      raf.writeInt(model.getNgram());
+      raf.writeInt(model.getSeqLength());
+      raf.writeDouble(model.getUniformEstimate());
+      raf.writeInt(trie.maxLength);
+      raf.writeInt(keys.size());
+
+      long offset = HEADER_SIZE + (long)INDEX_ENTRY_SIZE * keys.size();
+      long indexPos = HEADER_SIZE;
+      for (Integer key: keys) {
+        TrieNode root = trie.root(key, false);
+        raf.seek(offset);
+        // not closed, closing would close the file
+        ObjectOutputStream oos = new ObjectOutputStream(
+            new BufferedOutputStream(Channels.newOutputStream(raf.getChannel())));
+        oos.writeObject(root);
+        oos.flush();
+        long length = raf.getFilePointer() - offset;
+
+        raf.seek(indexPos);
+        raf.writeInt(key);
+        raf.writeLong(offset);
+        raf.writeLong(length);
+        indexPos = raf.getFilePointer();
+        offset += length;
+      }
+      raf.getFD().sync();
+    }
+    Files.move(tmp.toPath(), file.toPath(),
+        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  public NGramLanguageModel getModel() {
+    return model;
+  }
+
+  /**
+   * On disk size of the clean shards currently loaded.
+   * @return loaded shard bytes
+   */
+  public long getLoadedBytes() {
+    synchronized (this) {
+      return loadedBytes;
+    }
+  }
+
+  /**
+   * Return the root of a shard, loading it on first access.
+   * Reading a loaded shard takes no lock, it only records the access time.
+   * @param trie trie opened from this store
+   * @param key shard key
+   * @param create create the root if the shard does not exist; the shard becomes dirty
+   * @return root of the shard or null
+   */
+  TrieNode root(WordSeqCounterTrie trie, Integer key, boolean create) {
+    if (!create) {
+      TrieNode root = trie.rootContainer.get(key);
+      if (root != null) {
+        touch(key);
+        return root;
+      }
+    }
+    return loadRoot(trie, key, create);
+  }
+
+  private void touch(Integer key) {
+    AtomicLong accessed = lastAccess.get(key);
+    if (accessed != null) {
+      accessed.lazySet(System.nanoTime());
+    }
+  }
+
+  private synchronized TrieNode loadRoot(WordSeqCounterTrie trie, Integer key, boolean create) {
+    TrieNode root = trie.rootContainer.get(key);
+    if (root != null) {
+      if (create) {
+        markDirty(key);
+      } else {
+        touch(key);
+      }
+      return root;
+    }
+
+    long[] entry = index.get(key);
+    if (entry != null) {
+      root = load(entry[0], entry[1]);
+      trie.rootContainer.put(key, root);
+      if (create) {
+        dirty.add(key);
+      } else {
+        loaded.put(key, entry[1]);
+        lastAccess.put(key, new AtomicLong(System.nanoTime()));
+        loadedBytes += entry[1];
+        evict(trie, key);
+      }
+    } else if (create) {
+      root = TrieNodeFactory.createRootNode();
+      trie.rootContainer.put(key, root);
+      dirty.add(key);
+    }
+    return root;
+  }
+
+  /**
+   * Keys of every shard whether loaded or not.
+   */
+  synchronized Set<Integer> keys(WordSeqCounterTrie trie) {
+    Set<Integer> keys = new TreeSet<>(index.keySet());
+    keys.addAll(trie.rootContainer.keySet());
+    return keys;
+  }
+
+  /**
+   * Serialize the whole trie. Every shard is loaded for the duration and shards over
+   * the budget are evicted again afterwards. The store lock is held throughout, so no
+   * shard is loaded or evicted while rootContainer is being written.
+   */
+  synchronized void writeTrie(WordSeqCounterTrie trie, ObjectOutputStream out)
+      throws IOException {
+    loadAll(trie);
+    try {
+      out.defaultWriteObject();
+    } finally {
+      evict(trie, null);
+    }
+  }
+
+  private void loadAll(WordSeqCounterTrie trie) {
+    for (Map.Entry<Integer, long[]> entry: index.entrySet()) {
+      if (!trie.rootContainer.containsKey(entry.getKey())) {
+        trie.rootContainer.put(entry.getKey(), load(entry.getValue()[0], entry.getValue()[1]));
+        loaded.put(entry.getKey(), entry.getValue()[1]);
+        lastAccess.put(entry.getKey(), new AtomicLong(System.nanoTime()));
+        loadedBytes += entry.getValue()[1];
+      }
+    }
+  }
+
+  private void markDirty(Integer key) {
+    Long size = loaded.remove(key);
+    if (size != null) {
+      loadedBytes -= size;
+    }
+    lastAccess.remove(key);
+    dirty.add(key);
+  }
+
+  private void evict(WordSeqCounterTrie trie, Integer keep) {
+    if (loadedBytes <= shardBytesBudget) {
+      return;
+    }
+    // least recently used first
+    List<Integer> candidates = new ArrayList<>(loaded.keySet());
+    final Map<Integer, Long> accessed = new HashMap<>();
+    for (Integer key: candidates) {
+      AtomicLong time = lastAccess.get(key);
+      accessed.put(key, time == null ? Long.MIN_VALUE : time.get());
+    }
+    candidates.sort((k1, k2) -> Long.compare(accessed.get(k1), accessed.get(k2)));
+    for (Integer key: candidates) {
+      if (loadedBytes <= shardBytesBudget) {
+        break;
+      }
+      if (key.equals(keep)) {
+        continue;
+      }
+      trie.rootContainer.remove(key);
+      lastAccess.remove(key);
+      loadedBytes -= loaded.remove(key);
+    }
+  }
+
+  private TrieNode load(long offset, long length) {
+    try {
+      // a shard is deserialized onto the heap at once, mapping it would gain nothing
+      ObjectInputStream ois = new ObjectInputStream(stream(offset, length));
+      return (TrieNode)ois.readObject();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (ClassNotFoundException e) {
+      throw new UncheckedIOException(new IOException(e));
+    }
+  }
+
+  /**
+   * Stream a region of the model file with positional reads.
+   */
+  InputStream stream(long offset, long length) {
+    return new BufferedInputStream(new ChannelRegionInputStream(channel, offset, offset + length),
+        1 << 16);
+  }
+
+  /**
+   * Close the model file. Shards not loaded yet can no longer be accessed.
+   * @throws IOException throws IOException
+   */
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private static final class ChannelRegionInputStream extends InputStream {
+
+    private final FileChannel channel;
+    private final long end;
+    private long position;
+
+    ChannelRegionInputStream(FileChannel channel, long position, long end) {
+      this.channel = channel;
+      this.position = position;
+      this.end = end;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] one = new byte[1];
+      return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (position >= end) {
+        return -1;
+      }
+      int count = (int)Math.min(len, end - position);
+      int read = channel.read(ByteBuffer.wrap(bytes, off, count), position);
+      if (read > 0) {
+        position += read;
+      }
+      return read;
+    }
+  }
+}
@@ -0,0 +1,266 @@
+package com.risenture.alg.nlp;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of training batches i.e. (sequence of words, increment) pairs.
+ * Every record carries its length and a CRC32, so a torn write at the tail of
+ * the log is detected and dropped on replay.
+ * Appends are made durable with group commit: while one thread forces the log to
+ * disk the others keep appending, and the next committer forces all of them at once.
+ * A failed write or force fails the log for good: a partial write may have left a torn
+ * record, and nothing appended after it would survive replay.
+ */
+public class TrainingLog implements Closeable {
+
+  /**
+   * Receives the records of a log on replay.
+   */
+  public interface Consumer {
+    void accept(String[] wordSeq, int incr);
+  }
+
+  private final File file;
+  private final FileChannel channel;
+  private final Object commitLock = new Object();
+  private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+  private final DataOutputStream pendingOut = new DataOutputStream(pending);
+  private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+  private final DataOutputStream recordOut = new DataOutputStream(record);
+  private final CRC32 crc = new CRC32();
+  private long appended;
+  private volatile long durable;
+  private volatile IOException failure;
+
+  /**
+   * Opens a log for appending, creating it if it does not exist.
+   * An incomplete or corrupt tail left by a crash is truncated first, otherwise new
+   * records would follow it and replay, which stops at the tail, would drop them.
+   * @param file log file
+   * @throws IOException throws IOException
+   */
+  public TrainingLog(File file) throws IOException {
+    this(file, openForAppend(file));
+  }
+
+  private static FileChannel openForAppend(File file) throws IOException {
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE);
+    try {
+      long valid = scan(file, (wordSeq, incr) -> { });
+      if (valid < channel.size()) {
+        channel.truncate(valid);
+        channel.force(true);
+      }
+      channel.position(valid);
+      return channel;
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  TrainingLog(File file, FileChannel channel) {
+    super();
+    this.file = file;
+    this.channel = channel;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Append a training batch and wait until it is durable.
+   * @param wordSeq sequence of words
+   * @param incr increment count by
+   * @throws IOException throws IOException
+   */
+  public void append(String[] wordSeq, int incr) throws IOException {
+    commit(enqueue(wordSeq, incr));
+  }
+
+  /**
+   * Append a training batch without waiting for it to be durable.
+   * @param wordSeq sequence of words
+   * @param incr increment count by
+   * @return a ticket to be passed to {@link #commit(long)}
+   * @throws IOException throws IOException
+   */
+  public synchronized long enqueue(String[] wordSeq, int incr) throws IOException {
+    checkFailure();
+    checkWordSeq(wordSeq);
+    record.reset();
+    recordOut.writeInt(incr);
+    recordOut.writeInt(wordSeq.length);
+    for (String word: wordSeq) {
+      recordOut.writeUTF(word);
+    }
+    recordOut.flush();
+    crc.reset();
+    crc.update(record.toByteArray(), 0, record.size());
+
+    pendingOut.writeInt(record.size());
+    pendingOut.writeInt((int)crc.getValue());
+    record.writeTo(pendingOut);
+    pendingOut.flush();
+    return ++appended;
+  }
+
+  /**
+   * Wait until all appends up to the ticket are durable.
+   * The thread which gets the commit lock first writes and forces every pending
+   * append, so threads queued behind it usually find their append already durable.
+   * @param ticket ticket returned by {@link #enqueue(String[], int)}
+   * @throws IOException throws IOException
+   */
+  public void commit(long ticket) throws IOException {
+    if (durable >= ticket) {
+      return;
+    }
+    synchronized (commitLock) {
+      if (durable >= ticket) {
+        return;
+      }
+      checkFailure();
+      byte[] batch;
+      long upTo;
+      synchronized (this) {
+        batch = pending.toByteArray();
+        upTo = appended;
+      }
+      try {
+        ByteBuffer buffer = ByteBuffer.wrap(batch);
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+        channel.force(false);
+      } catch (IOException e) {
+        failure = e;
+        throw e;
+      }
+      synchronized (this) {
+        // keep what was appended while the batch was being forced
+        byte[] all = pending.toByteArray();
+        pending.reset();
+        pending.write(all, batch.length, all.length - batch.length);
+      }
+      durable = upTo;
+    }
+  }
+
+  /**
+   * Reject a sequence the Trie cannot take, before it reaches a log and fails every replay.
+   * @param wordSeq sequence of words
+   */
+  static void checkWordSeq(String[] wordSeq) {
+    if (wordSeq == null || wordSeq.length == 0) {
+      throw new IllegalArgumentException("word sequence must have at least one word");
+    }
+    for (int i = 0; i < wordSeq.length; ++i) {
+      if (wordSeq[i] == null || wordSeq[i].isEmpty()) {
+        String msg = "words must not be null or empty."
+            + " Found word=" + wordSeq[i]
+            + " at position=" + i;
+        throw new IllegalArgumentException(msg);
+      }
+    }
+  }
+
+  private void checkFailure() throws IOException {
+    if (failure != null) {
+      throw new IOException("training log " + file + " has failed", failure);
+    }
+  }
+
+  /**
+   * Commit every pending append and close the log.
+   * @throws IOException throws IOException
+   */
+  @Override
+  public void close() throws IOException {
+    long ticket;
+    synchronized (this) {
+      ticket = appended;
+    }
+    try {
+      commit(ticket);
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Replay the records of a log file in order.
+   * Replay stops silently at the first incomplete or corrupt record, which can only
+   * be the tail of the log left by a crash in the middle of a write.
+   * @param file log file
+   * @param consumer receives the records
+   * @return number of records replayed
+   * @throws IOException throws IOException
+   */
+  public static long replay(File file, final Consumer consumer) throws IOException {
+    final long[] replayed = new long[1];
+    scan(file, (wordSeq, incr) -> {
+      consumer.accept(wordSeq, incr);
+      ++replayed[0];
+    });
+    return replayed[0];
+  }
+
+  /**
+   * Read the valid records of a log file in order.
+   * @return length of the valid prefix of the file in bytes
+   */
+  private static long scan(File file, Consumer consumer) throws IOException {
+    long valid = 0;
+    if (!file.exists()) {
+      return valid;
+    }
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(file)))) {
+      CRC32 checksum = new CRC32();
+      while (true) {
+        byte[] bytes;
+        try {
+          int length = in.readInt();
+          int expected = in.readInt();
+          if (length <= 0 || length > file.length()) {
+            break;
+          }
+          bytes = new byte[length];
+          in.readFully(bytes);
+          checksum.reset();
+          checksum.update(bytes, 0, length);
+          if ((int)checksum.getValue() != expected) {
+            break;
+          }
+        } catch (EOFException e) {
+          break;
+        }
+        DataInputStream recordIn = new DataInputStream(new ByteArrayInputStream(bytes));
+        int incr = recordIn.readInt();
+        String[] wordSeq = new String[recordIn.readInt()];
+        for (int i = 0; i < wordSeq.length; ++i) {
+          wordSeq[i] = recordIn.readUTF();
+        }
+        consumer.accept(wordSeq, incr);
+        valid += 8 + bytes.length;
+      }
+    }
+    return valid;
+  }
+}
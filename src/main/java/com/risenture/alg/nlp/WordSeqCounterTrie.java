@@ -1,10 +1,14 @@
 package com.risenture.alg.nlp;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class WordSeqCounterTrie implements Serializable {
 
@@ -16,6 +20,9 @@ public class WordSeqCounterTrie implements Serializable {
 
   final int maxLength;
 
+  // loads root shards on first access when the trie is opened from a sharded model file
+  transient ShardedModelStore shardStore;
+
   /**
    * Creates a Trie structure which stores the counts of words in sequence.
    * This Trie will use separate containers for each starting letter of sequence
@@ -26,8 +33,26 @@ public class WordSeqCounterTrie implements Serializable {
     rootContainer.put(Character.getNumericValue(' '), TrieNodeFactory.createRootNode());
   }
 
+  /**
+   * Creates a Trie whose root containers are loaded from a sharded model file.
+   * @param maxLength length of the words
+   * @param shardStore store the root containers are loaded from
+   */
+  WordSeqCounterTrie(int maxLength, ShardedModelStore shardStore) {
+    this.maxLength = maxLength;
+    this.shardStore = shardStore;
+    // loaded shards are read without the store lock
+    this.rootContainer = new ConcurrentHashMap<>();
+  }
+
   private TrieNode root(char cr, boolean create) {
-    Integer charUnicode = Character.getNumericValue(cr);
+    return root(Character.getNumericValue(cr), create);
+  }
+
+  TrieNode root(Integer charUnicode, boolean create) {
+    if (shardStore != null) {
+      return shardStore.root(this, charUnicode, create);
+    }
     TrieNode root = null;
     if (rootContainer.containsKey(charUnicode)) {
       return rootContainer.get(charUnicode);
@@ -77,22 +102,16 @@ public class WordSeqCounterTrie implements Serializable {
    * @return trie node if found or null otherwise
    */
   public TrieNode navigate(String[] wordSeq) {
-    TrieNode node = null;
-    if (wordSeq.length > 0) {
-      TrieNode root = root(wordSeq[0].charAt(0), false);
-      if (root != null) {
-        Map<String, TrieNode> children = root.getChildren();
-        for (String word: wordSeq) {
-          if (children != null && children.size() != 0) {
-            if (children.containsKey(word)) {
-              node = children.get(word);
-              children = node.getChildren();
-            } else {
-              node = null;
-            }
-          }
-        }
+    if (wordSeq.length == 0 || wordSeq[0].isEmpty()) {
+      return null;
+    }
+    TrieNode node = root(wordSeq[0].charAt(0), false);
+    for (String word: wordSeq) {
+      if (node == null || node.getChildren() == null) {
+        return null;
       }
+      // stop at the first word missing, the sequence is not in the Trie
+      node = node.getChildren().get(word);
     }
     return node;
   }
@@ -198,6 +217,25 @@ public class WordSeqCounterTrie implements Serializable {
     return 0;
   }
 
+  /**
+   * Keys of all root containers, including the ones not loaded yet.
+   * @return root container keys
+   */
+  Set<Integer> rootKeys() {
+    if (shardStore != null) {
+      return shardStore.keys(this);
+    }
+    return new TreeSet<>(rootContainer.keySet());
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    if (shardStore != null) {
+      shardStore.writeTrie(this, out);
+      return;
+    }
+    out.defaultWriteObject();
+  }
+
   private void checkArgsStartEnd(String[] wordSeq, int start, int end) {
     if (end < start) {
       String msg = "End must be >= start."
@@ -0,0 +1,188 @@
+package com.risenture.alg.nlp;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ModelCheckpointerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+
+    @Before
+    public void setup() {
+        dir = new File(folder.getRoot(), "model");
+    }
+
+    @Test
+    public void recoversFromLogOnly() throws IOException {
+        try (ModelCheckpointer checkpointer = ModelCheckpointer.open(dir, 3)) {
+            checkpointer.train(words("She is stupid"), 1);
+            checkpointer.train(words("She is smart"), 2);
+        }
+        try (ModelCheckpointer checkpointer = ModelCheckpointer.open(dir, 3)) {
+            assertEquals(3, count(checkpointer, "She is"));
+            assertEquals(2, count(checkpointer, "She is smart"));
+        }
+    }
+
+    @Test
+    public void recoversFromBaseCheckpointsAndLog() throws IOException {
+        try (ModelCheckpointer checkpointer = ModelCheckpointer.open(dir, 3)) {
+            checkpointer.train(words("She is stupid"), 1);
+            assertEquals(1, checkpointer.checkpoint());
+            checkpointer.train(words("She is stupid"), 1);
+            assertEquals(1, checkpointer.checkpoint());
+            assertEquals(2, checkpointer.compact());
+            checkpointer.train(words("She is smart"), 1);
+            assertEquals(1, checkpointer.checkpoint());
+            checkpointer.train(words("He is"), 1);
+        }
+        try (ModelCheckpointer checkpointer = ModelCheckpointer.open(dir, 3)) {
+            assertEquals(2, count(checkpointer, "She is stupid"));
+            assertEquals(1, count(checkpointer, "She is smart"));
+            assertEquals(1, count(checkpointer, "He is"));
+        }
+    }
+
+    @Test
+    public void checkpointSumsBatchesBySequence() throws IOException {
+        try (ModelCheckpointer checkpointer = ModelCheckpointer.open(dir, 3)) {
+            for (int i = 0; i < 100; ++i) {
+                checkpointer.train(words("She is stupid"), 1);
+            }
+            checkpointer.checkpoint();
+        }
+        File checkpoint = new File(dir, "checkpoint-0.bin");
+        assertTrue(checkpoint.exists());
+        assertTrue(checkpoint.length() < 64);
+        try (ModelCheckpointer checkpointer = ModelCheckpointer.open(dir, 3)) {
+            assertEquals(100, count(checkpointer, "She is stupid"));
+        }
+    }
+
+    @Test
+    public void crashAfterCheckpointBeforeLogDeleteIsNotReplayedTwice() throws IOException {
+        File log = new File(dir, "training-0.log");
+        File saved = folder.newFile("saved.log");
+        try (ModelCheckpointer checkpointer = ModelCheckpointer.open(dir, 3)) {
+            checkpointer.train(words("She is stupid"), 1);
+            copy(log, saved);
+            checkpointer.checkpoint();
+        }
+        copy(saved, log);
+        try (ModelCheckpointer checkpointer = ModelCheckpointer.open(dir, 3)) {
+            assertEquals(1, count(checkpointer, "She is stupid"));
+            checkpointer.checkpoint();
+            checkpointer.compact();
+        }
+        try (ModelCheckpointer checkpointer = ModelCheckpointer.open(dir, 3)) {
+            assertEquals(1, count(checkpointer, "She is stupid"));
+        }
+    }
+
+    @Test
+    public void crashAfterCompactRenameBeforeDeleteIsNotAppliedTwice() throws IOException {
+        File checkpoint = new File(dir, "checkpoint-0.bin");
+        File saved = folder.newFile("saved.bin");
+        try (ModelCheckpointer checkpointer = ModelCheckpointer.open(dir, 3)) {
+            checkpointer.train(words("She is stupid"), 1);
+            checkpointer.checkpoint();
+            copy(checkpoint, saved);
+            checkpointer.compact();
+        }
+        copy(saved, checkpoint);
+        try (ModelCheckpointer checkpointer = ModelCheckpointer.open(dir, 3)) {
+            assertEquals(1, count(checkpointer, "She is stupid"));
+            checkpointer.compact();
+        }
+        assertFalse(checkpoint.exists());
+        try (ModelCheckpointer checkpointer = ModelCheckpointer.open(dir, 3)) {
+            assertEquals(1, count(checkpointer, "She is stupid"));
+        }
+    }
+
+    @Test
+    public void tornLogTailIsIgnoredOnRecovery() throws IOException {
+        try (ModelCheckpointer checkpointer = ModelCheckpointer.open(dir, 3)) {
+            checkpointer.train(words("She is stupid"), 1);
+        }
+        try (FileOutputStream out = new FileOutputStream(new File(dir, "training-0.log"), true)) {
+            out.write(new byte[]{0, 0, 0, 40, 1, 2});
+        }
+        try (ModelCheckpointer checkpointer = ModelCheckpointer.open(dir, 3)) {
+            assertEquals(1, count(checkpointer, "She is stupid"));
+        }
+    }
+
+    @Test
+    public void rejectedBatchIsNotLogged() throws IOException {
+        try (ModelCheckpointer checkpointer = ModelCheckpointer.open(dir, 3)) {
+            checkpointer.train(words("She is stupid"), 1);
+            try {
+                checkpointer.train(words(" She is"), 1);
+                fail("an empty first word must be rejected");
+            } catch (IllegalArgumentException expected) {
+                // expected
+            }
+        }
+        try (ModelCheckpointer checkpointer = ModelCheckpointer.open(dir, 3)) {
+            assertEquals(1, count(checkpointer, "She is stupid"));
+        }
+    }
+
+    @Test
+    public void concurrentTrainingLosesNoUpdates() throws Exception {
+        final int threads = 16;
+        final int trains = 200;
+        try (final ModelCheckpointer checkpointer = ModelCheckpointer.open(dir, 3)) {
+            List<Thread> workers = new ArrayList<>();
+            for (int i = 0; i < threads; ++i) {
+                final String word = "w" + (i % 4);
+                Thread worker = new Thread(() -> {
+                    try {
+                        for (int j = 0; j < trains; ++j) {
+                            checkpointer.train(words("She is " + word), 1);
+                        }
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+                workers.add(worker);
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            assertEquals(threads * trains, count(checkpointer, "She is"));
+        }
+        try (ModelCheckpointer checkpointer = ModelCheckpointer.open(dir, 3)) {
+            assertEquals(threads * trains, count(checkpointer, "She is"));
+        }
+    }
+
+    private static long count(ModelCheckpointer checkpointer, String statement) {
+        return checkpointer.getModel().getWordSeqCounterTrie().count(words(statement));
+    }
+
+    private static String[] words(String statement) {
+        return statement.split(" ");
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        Files.copy(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
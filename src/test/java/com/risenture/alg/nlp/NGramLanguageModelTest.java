@@ -1,6 +1,7 @@
 package com.risenture.alg.nlp;
 
 import org.junit.Before;
+import org.junit.Test;
 
 import static org.junit.Assert.*;
 
@@ -9,11 +10,38 @@ import static org.junit.Assert.*;
  */
 public class NGramLanguageModelTest {
 
+    private NGramLanguageModel model;
+
     @Before
     public void setup() {
-
+        model = new NGramLanguageModel(3);
+        model.train("She is stupid but clever");
+        model.train("She is not stupid");
+        model.train("She is stupid");
+        model.train("She may be stupid but clever");
+        model.train("is stupid but who");
+        model.train("stupid is y stupid but clever");
     }
 
-    public void
+    @Test
+    public void probabilitiesMatchProbability() {
+        String[] words = {"stupid", "not", "but", "clever", "who", "unknown", "is"};
+        String[][] contexts = {
+            {"She"}, {"She", "is"}, {"She", "is", "stupid"}, {"is", "stupid"},
+            {"stupid", "but"}, {"She", "xyz"}, {"unknown"}
+        };
+        for (int ngram = 1; ngram <= 4; ++ngram) {
+            NGramLanguageModel other = new NGramLanguageModel(ngram);
+            other.getWordSeqCounterTrie().rootContainer.putAll(
+                model.getWordSeqCounterTrie().rootContainer);
+            for (String[] context : contexts) {
+                double[] probabilities = other.probabilities(context, words);
+                for (int i = 0; i < words.length; ++i) {
+                    assertEquals(String.join(" ", context) + " -> " + words[i],
+                        other.probability(context, words[i]), probabilities[i], 1e-12);
+                }
+            }
+        }
+    }
 
 }
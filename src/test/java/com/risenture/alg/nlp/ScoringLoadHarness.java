@@ -0,0 +1,188 @@
+package com.risenture.alg.nlp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test harness for {@link ScoringServer}, run by hand through its main method.
+ * Trains a small model, starts the server on localhost and runs concurrent clients
+ * against it, then reports throughput and p50/p99 latency.
+ */
+public class ScoringLoadHarness {
+
+    private static final String[] CORPUS = {
+        "I am a super hero",
+        "She is not stupid clever",
+        "She is stupid",
+        "She is stupid but clever",
+        "She is x but stupid",
+        "She is smart stupid but clever",
+        "She may be stupid but clever",
+        "is y dont know but clever",
+        "is stupid but who"
+    };
+
+    private final int port;
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    ScoringLoadHarness(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Run clients until the deadline and collect their latencies.
+     * @param clients number of concurrent clients
+     * @param durationMillis duration of the run
+     * @return latencies of successful requests in nanoseconds
+     * @throws InterruptedException throws InterruptedException
+     */
+    long[] run(int clients, long durationMillis) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        final List<List<Long>> latencies = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clients; ++i) {
+            final List<Long> clientLatencies = new ArrayList<>();
+            final Random random = new Random(i);
+            latencies.add(clientLatencies);
+            Thread thread = new Thread(() -> {
+                while (System.nanoTime() < deadline) {
+                    long start = System.nanoTime();
+                    if (request(randomPath(random))) {
+                        clientLatencies.add(System.nanoTime() - start);
+                    }
+                }
+            }, "load-client-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread: threads) {
+            thread.join();
+        }
+
+        int total = 0;
+        for (List<Long> clientLatencies: latencies) {
+            total += clientLatencies.size();
+        }
+        long[] merged = new long[total];
+        int pos = 0;
+        for (List<Long> clientLatencies: latencies) {
+            for (Long latency: clientLatencies) {
+                merged[pos++] = latency;
+            }
+        }
+        Arrays.sort(merged);
+        return merged;
+    }
+
+    private String randomPath(Random random) {
+        String[] words = CORPUS[random.nextInt(CORPUS.length)].split(" ");
+        int length = 1 + random.nextInt(words.length - 1);
+        String seq = String.join(" ", Arrays.copyOf(words, length));
+        try {
+            if (random.nextBoolean()) {
+                return "/probability?seq=" + URLEncoder.encode(seq, "UTF-8")
+                        + "&word=" + URLEncoder.encode(words[length], "UTF-8");
+            }
+            return "/topk?k=3&seq=" + URLEncoder.encode(seq, "UTF-8");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private boolean request(String path) {
+        HttpURLConnection conn = null;
+        try {
+            conn = (HttpURLConnection)new URL("http://127.0.0.1:" + port + path).openConnection();
+            int status = conn.getResponseCode();
+            InputStream in = status < 400 ? conn.getInputStream() : conn.getErrorStream();
+            // drain the body so the connection is kept alive
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[512];
+            int read;
+            while (in != null && (read = in.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+            if (in != null) {
+                in.close();
+            }
+            if (status == 200) {
+                return true;
+            }
+            if (status == 503) {
+                rejected.incrementAndGet();
+            } else {
+                failed.incrementAndGet();
+            }
+        } catch (IOException e) {
+            failed.incrementAndGet();
+            if (conn != null) {
+                conn.disconnect();
+            }
+        }
+        return false;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0L;
+        }
+        int pos = (int)Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(pos, sorted.length - 1))];
+    }
+
+    /**
+     * main method.
+     * @param args [clients] [duration seconds] [queue capacity] [max batch size]
+     * @throws Exception throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int queueCapacity = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+        int maxBatchSize = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+        // without TCP_NODELAY small responses wait on delayed acks and p50 reads ~40ms
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+
+        NGramLanguageModel model = new NGramLanguageModel(3);
+        for (String statement: CORPUS) {
+            model.train(statement);
+        }
+
+        try (ScoringServer server = new ScoringServer(model,
+                new InetSocketAddress("127.0.0.1", 0), queueCapacity, maxBatchSize)) {
+            server.start();
+            ScoringLoadHarness loadTest = new ScoringLoadHarness(server.getPort());
+            // warm up before measuring
+            loadTest.run(clients, 1000L);
+            loadTest.rejected.set(0);
+            loadTest.failed.set(0);
+
+            long[] latencies = loadTest.run(clients, TimeUnit.SECONDS.toMillis(seconds));
+            System.out.println("clients: " + clients + ", duration: " + seconds + "s");
+            System.out.println("requests: " + latencies.length
+                    + ", rejected: " + loadTest.rejected.get()
+                    + ", failed: " + loadTest.failed.get());
+            System.out.printf("throughput: %.1f req/s%n", latencies.length / (double)seconds);
+            System.out.printf("p50: %.3f ms, p99: %.3f ms%n",
+                    millis(percentile(latencies, 50.0)), millis(percentile(latencies, 99.0)));
+        }
+    }
+}
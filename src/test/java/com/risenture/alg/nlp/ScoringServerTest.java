@@ -0,0 +1,176 @@
+package com.risenture.alg.nlp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ScoringServerTest {
+
+    private NGramLanguageModel model;
+    private ScoringServer server;
+
+    @Before
+    public void setup() throws IOException {
+        model = new NGramLanguageModel(3);
+        model.train("She is stupid but clever");
+        model.train("She is not stupid");
+        model.train("She is stupid");
+        server = new ScoringServer(model, new InetSocketAddress("127.0.0.1", 0), 16, 8);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void topKAndProbabilityReportOneScale() throws IOException {
+        String probability = get("/probability?seq=She+is&word=stupid").trim();
+        assertEquals(model.probability("She is".split(" "), "stupid"),
+            Double.parseDouble(probability), 0.0);
+
+        String[] lines = get("/topk?seq=She+is&k=1").split("\n");
+        assertEquals(1, lines.length);
+        String[] top = lines[0].split("\t");
+        assertEquals("stupid", top[0]);
+        assertEquals(probability, top[1]);
+    }
+
+    @Test
+    public void topKOfUnknownContextIsEmpty() throws IOException {
+        assertEquals("", get("/topk?seq=She+xyz+is&k=3"));
+    }
+
+    @Test
+    public void missingParametersAreRejected() throws IOException {
+        assertEquals(400, status("/probability?seq=She"));
+        assertEquals(400, status("/topk?seq=She&k=0"));
+    }
+
+    @Test
+    public void fullQueueIsRejectedWithRetryAfter() throws Exception {
+        server.close();
+        server = new ScoringServer(model, new InetSocketAddress("127.0.0.1", 0), 1, 1);
+        server.start();
+        ExecutorService clients = Executors.newCachedThreadPool();
+        try {
+            Future<String> first;
+            Future<String> second;
+            synchronized (model) {
+                // the batcher takes the first request and stalls on the model lock
+                first = clients.submit(() -> get("/probability?seq=She+is&word=stupid"));
+                awaitBatches(1);
+                // the second request fills the queue
+                second = clients.submit(() -> get("/probability?seq=She+is&word=not"));
+                awaitQueued(1);
+
+                HttpURLConnection conn = open("/probability?seq=She&word=is");
+                assertEquals(503, conn.getResponseCode());
+                assertEquals("1", conn.getHeaderField("Retry-After"));
+                conn.disconnect();
+            }
+            assertEquals(model.probability("She is".split(" "), "stupid"),
+                Double.parseDouble(first.get(5, TimeUnit.SECONDS).trim()), 0.0);
+            assertEquals(model.probability("She is".split(" "), "not"),
+                Double.parseDouble(second.get(5, TimeUnit.SECONDS).trim()), 0.0);
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    @Test
+    public void duplicateRequestsAreScoredInOneBatch() throws Exception {
+        int duplicates = 6;
+        ExecutorService clients = Executors.newCachedThreadPool();
+        try {
+            List<Future<String>> answers = new ArrayList<>();
+            synchronized (model) {
+                clients.submit(() -> get("/probability?seq=She&word=is"));
+                awaitBatches(1);
+                for (int i = 0; i < duplicates; ++i) {
+                    answers.add(clients.submit(() -> get("/topk?seq=She+is&k=2")));
+                }
+                awaitQueued(duplicates);
+            }
+            String expected = answers.get(0).get(5, TimeUnit.SECONDS);
+            assertTrue(expected.startsWith("stupid\t"));
+            for (Future<String> answer: answers) {
+                assertEquals(expected, answer.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(2, server.getBatchCount());
+            assertEquals(1 + duplicates, server.getScoredCount());
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    @Test
+    public void timedOutRequestIsNotScored() throws Exception {
+        server.setResponseTimeoutMillis(200);
+        synchronized (model) {
+            assertEquals(504, status("/probability?seq=She+is&word=stupid"));
+        }
+        // the next batch skips the request cancelled on time out
+        get("/probability?seq=She&word=is");
+        assertEquals(1, server.getScoredCount());
+    }
+
+    private void awaitBatches(long batches) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getBatchCount() < batches) {
+            assertTrue("batcher did not take the request", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private void awaitQueued(int queued) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getQueuedCount() < queued) {
+            assertTrue("requests were not queued", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private String get(String path) throws IOException {
+        HttpURLConnection conn = open(path);
+        assertEquals(200, conn.getResponseCode());
+        try (InputStream in = conn.getInputStream()) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[512];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+            return new String(body.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private int status(String path) throws IOException {
+        HttpURLConnection conn = open(path);
+        int status = conn.getResponseCode();
+        conn.disconnect();
+        return status;
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        URL url = new URL("http://127.0.0.1:" + server.getPort() + path);
+        return (HttpURLConnection)url.openConnection();
+    }
+}
@@ -0,0 +1,154 @@
+package com.risenture.alg.nlp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SentenceCompleterTest {
+
+    private NGramLanguageModel model;
+    private SentenceCompleter completer;
+
+    @Before
+    public void setup() {
+        model = new NGramLanguageModel(3);
+        model.train("She is stupid but clever");
+        model.train("She is not stupid");
+        model.train("She is stupid");
+        model.train("She may be clever", 3);
+        completer = new SentenceCompleter(model);
+    }
+
+    @Test
+    public void completesInOrderOfScore() {
+        SentenceCompleter.Completion[] completions = completer.complete(words("She"), 4, 5, 1000);
+        assertEquals(4, completions.length);
+        assertArrayEquals(words("may be clever"), completions[0].getWords());
+        assertEquals(-1.0, completions[0].getScore(), 1e-9);
+        for (int i = 1; i < completions.length; ++i) {
+            assertTrue(completions[i - 1].getScore() >= completions[i].getScore());
+        }
+    }
+
+    @Test
+    public void missingWordHasNoCompletions() {
+        assertEquals(0, completer.complete(words("She xyz is"), 4, 5, 1000).length);
+        assertEquals(0, completer.complete(words("stupid but"), 4, 5, 1000).length);
+    }
+
+    @Test
+    public void topNLimitsCompletions() {
+        SentenceCompleter.Completion[] completions = completer.complete(words("She"), 4, 2, 1000);
+        assertEquals(2, completions.length);
+        assertArrayEquals(words("may be clever"), completions[0].getWords());
+    }
+
+    @Test
+    public void beamWidthPrunesHypotheses() {
+        completer.setBeamWidth(1);
+        SentenceCompleter.Completion[] completions = completer.complete(words("She"), 4, 5, 1000);
+        assertEquals(1, completions.length);
+        assertArrayEquals(words("may be clever"), completions[0].getWords());
+    }
+
+    @Test
+    public void scoreThresholdPrunesHypotheses() {
+        completer.setScoreThreshold(-2.0);
+        SentenceCompleter.Completion[] completions = completer.complete(words("She"), 4, 5, 1000);
+        assertEquals(1, completions.length);
+        assertTrue(completions[0].getScore() >= -2.0);
+    }
+
+    @Test
+    public void maxWordsTruncatesCompletions() {
+        SentenceCompleter.Completion[] completions = completer.complete(words("She is"), 1, 5, 1000);
+        for (SentenceCompleter.Completion completion : completions) {
+            assertEquals(1, completion.getWords().length);
+        }
+        assertEquals(2, completions.length);
+    }
+
+    @Test
+    public void cancelledQueryStops() {
+        SentenceCompleter.Query query = completer.newQuery(words("She"), 4, 5, 1000);
+        query.cancel();
+        assertEquals(0, query.run().length);
+        assertTrue(query.isCancelled());
+        assertFalse(query.isTimedOut());
+    }
+
+    @Test
+    public void timeoutIsNotACancellation() {
+        SentenceCompleter.Query query = completer.newQuery(words("She"), 4, 5, 0);
+        query.run();
+        assertTrue(query.isTimedOut());
+        assertFalse(query.isCancelled());
+
+        SentenceCompleter.Query reused = completer.newQuery(words("She"), 4, 5, 1000);
+        assertEquals(4, reused.run().length);
+        assertEquals(4, reused.run().length);
+        assertFalse(reused.isTimedOut());
+    }
+
+    @Test
+    public void timeoutStopsInsideHighFanoutExpansion() {
+        NGramLanguageModel wide = new NGramLanguageModel(3);
+        for (int i = 0; i < 300000; ++i) {
+            wide.train(new String[]{"She", "w" + i}, 1);
+        }
+        SentenceCompleter wideCompleter = new SentenceCompleter(wide);
+
+        long start = System.nanoTime();
+        wideCompleter.complete(words("She"), 1, 5, 60000);
+        long full = System.nanoTime() - start;
+
+        SentenceCompleter.Query query = wideCompleter.newQuery(words("She"), 1, 5, 1);
+        start = System.nanoTime();
+        query.run();
+        long expired = System.nanoTime() - start;
+        assertTrue(query.isTimedOut());
+        assertTrue("expired after " + expired + "ns, full run " + full + "ns", expired < full / 2);
+    }
+
+    @Test
+    public void cancelStopsInsideHighFanoutExpansion() throws Exception {
+        NGramLanguageModel wide = new NGramLanguageModel(3);
+        for (int i = 0; i < 300000; ++i) {
+            wide.train(new String[]{"She", "w" + i}, 1);
+        }
+        SentenceCompleter wideCompleter = new SentenceCompleter(wide);
+
+        long start = System.nanoTime();
+        wideCompleter.complete(words("She"), 1, 5, 60000);
+        long full = System.nanoTime() - start;
+
+        final SentenceCompleter.Query query = wideCompleter.newQuery(words("She"), 1, 5, 60000);
+        Thread canceller = new Thread(() -> {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            query.cancel();
+        });
+        start = System.nanoTime();
+        canceller.start();
+        query.run();
+        long cancelled = System.nanoTime() - start;
+        canceller.join();
+        assertTrue(query.isCancelled());
+        assertFalse(query.isTimedOut());
+        assertTrue("cancelled after " + cancelled + "ns, full run " + full + "ns",
+            cancelled < full / 2 + 20_000_000L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void beamWidthMustBePositive() {
+        completer.setBeamWidth(0);
+    }
+
+    private static String[] words(String statement) {
+        return statement.split(" ");
+    }
+}
@@ -0,0 +1,186 @@
+package com.risenture.alg.nlp;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ShardedModelStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private NGramLanguageModel model;
+
+    @Before
+    public void setup() throws IOException {
+        file = new File(folder.getRoot(), "model.shards");
+        model = new NGramLanguageModel(3);
+        model.setSeqLength(20);
+        model.train("She is stupid");
+        model.train("He is smart", 2);
+        model.train("apple is red");
+        model.train("zoo is big");
+        ShardedModelStore.write(model, file);
+    }
+
+    @Test
+    public void roundTripsModel() throws IOException {
+        try (ShardedModelStore store = ShardedModelStore.open(file)) {
+            NGramLanguageModel opened = store.getModel();
+            assertEquals(3, opened.getNgram());
+            assertEquals(20, opened.getSeqLength());
+            assertEquals(model.getUniformEstimate(), opened.getUniformEstimate(), 0.0);
+            assertEquals(1, count(opened, "She is stupid"));
+            assertEquals(2, count(opened, "He is smart"));
+            assertEquals(1, count(opened, "apple is red"));
+            assertEquals(1, count(opened, "zoo is big"));
+            assertEquals(0, count(opened, "zoo is red"));
+        }
+    }
+
+    @Test
+    public void loadsShardsOnFirstAccess() throws IOException {
+        try (ShardedModelStore store = ShardedModelStore.open(file)) {
+            assertEquals(0, store.getLoadedBytes());
+            count(store.getModel(), "He is smart");
+            long oneShard = store.getLoadedBytes();
+            assertTrue(oneShard > 0);
+            count(store.getModel(), "He is");
+            assertEquals(oneShard, store.getLoadedBytes());
+            count(store.getModel(), "zoo is big");
+            assertTrue(store.getLoadedBytes() > oneShard);
+        }
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedShardsOverBudget() throws IOException {
+        try (ShardedModelStore store = ShardedModelStore.open(file, 1)) {
+            WordSeqCounterTrie trie = store.getModel().getWordSeqCounterTrie();
+            count(store.getModel(), "He is smart");
+            count(store.getModel(), "zoo is big");
+            assertEquals(1, trie.rootContainer.size());
+            // evicted shards are loaded again on access
+            assertEquals(2, count(store.getModel(), "He is smart"));
+            assertEquals(1, trie.rootContainer.size());
+        }
+    }
+
+    @Test
+    public void trainedShardsAreNotEvicted() throws IOException {
+        try (ShardedModelStore store = ShardedModelStore.open(file, 1)) {
+            store.getModel().train("He is clever");
+            count(store.getModel(), "zoo is big");
+            count(store.getModel(), "apple is red");
+            assertEquals(1, count(store.getModel(), "He is clever"));
+            assertEquals(3, count(store.getModel(), "He is"));
+        }
+    }
+
+    @Test
+    public void writeToLoadsEveryShardAndEvictsAfter() throws Exception {
+        try (ShardedModelStore store = ShardedModelStore.open(file, 1)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            store.getModel().writeTo(out);
+            assertTrue(store.getModel().getWordSeqCounterTrie().rootContainer.size() <= 1);
+
+            NGramLanguageModel copy = NGramLanguageModel.readFrom(
+                new ByteArrayInputStream(out.toByteArray()));
+            assertEquals(1, count(copy, "She is stupid"));
+            assertEquals(2, count(copy, "He is smart"));
+            assertEquals(1, count(copy, "apple is red"));
+            assertEquals(1, count(copy, "zoo is big"));
+        }
+    }
+
+    @Test
+    public void rewritesOpenStoreInPlace() throws IOException {
+        try (ShardedModelStore store = ShardedModelStore.open(file)) {
+            store.getModel().train("zebra is fast");
+            ShardedModelStore.write(store.getModel(), file);
+            // the open store keeps reading the file it opened
+            assertEquals(1, count(store.getModel(), "She is stupid"));
+        }
+        try (ShardedModelStore store = ShardedModelStore.open(file)) {
+            assertEquals(1, count(store.getModel(), "zebra is fast"));
+            assertEquals(2, count(store.getModel(), "He is smart"));
+        }
+    }
+
+    @Test
+    public void streamsShardRegion() throws Exception {
+        try (ShardedModelStore store = ShardedModelStore.open(file)) {
+            // header, then 5 index entries: the ' ' root and the S, H, a and z shards
+            long offset = 32 + 20 * 5;
+            ObjectInputStream ois = new ObjectInputStream(
+                store.stream(offset, file.length() - offset));
+            assertNotNull((TrieNode)ois.readObject());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedFiles() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(40);
+        }
+        ShardedModelStore.open(file);
+    }
+
+    @Test
+    public void concurrentReadsDuringEviction() throws Exception {
+        try (final ShardedModelStore store = ShardedModelStore.open(file, 1)) {
+            final String[] statements = {"She is stupid", "He is smart", "apple is red", "zoo is big"};
+            final long[] expected = {1, 2, 1, 1};
+            final List<Throwable> errors = new ArrayList<>();
+            List<Thread> readers = new ArrayList<>();
+            for (int i = 0; i < 8; ++i) {
+                final int offset = i;
+                Thread reader = new Thread(() -> {
+                    try {
+                        for (int j = 0; j < 2000; ++j) {
+                            int pick = (offset + j) % statements.length;
+                            assertEquals(expected[pick], count(store.getModel(), statements[pick]));
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                });
+                readers.add(reader);
+                reader.start();
+            }
+            for (Thread reader : readers) {
+                reader.join();
+            }
+            assertTrue(errors.toString(), errors.isEmpty());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        NGramLanguageModel other = new NGramLanguageModel(3);
+        File plain = folder.newFile("plain.bin");
+        try (FileOutputStream out = new FileOutputStream(plain)) {
+            other.writeTo(out);
+        }
+        ShardedModelStore.open(plain);
+    }
+
+    private static long count(NGramLanguageModel model, String statement) {
+        return model.getWordSeqCounterTrie().count(statement.split(" "));
+    }
+}
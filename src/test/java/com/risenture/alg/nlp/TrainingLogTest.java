@@ -0,0 +1,177 @@
+package com.risenture.alg.nlp;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TrainingLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setup() throws IOException {
+        file = new File(folder.getRoot(), "training-0.log");
+    }
+
+    @Test
+    public void replaysAppendsInOrder() throws IOException {
+        try (TrainingLog log = new TrainingLog(file)) {
+            log.append("She is stupid".split(" "), 1);
+            log.append("He is smart".split(" "), 3);
+        }
+        List<String> replayed = replay();
+        assertEquals(2, replayed.size());
+        assertEquals("She is stupid:1", replayed.get(0));
+        assertEquals("He is smart:3", replayed.get(1));
+    }
+
+    @Test
+    public void replayDropsTornTail() throws IOException {
+        try (TrainingLog log = new TrainingLog(file)) {
+            log.append("She is stupid".split(" "), 1);
+            log.append("He is smart".split(" "), 3);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+        List<String> replayed = replay();
+        assertEquals(1, replayed.size());
+        assertEquals("She is stupid:1", replayed.get(0));
+    }
+
+    @Test
+    public void replayStopsAtCorruptRecord() throws IOException {
+        try (TrainingLog log = new TrainingLog(file)) {
+            log.append("She is stupid".split(" "), 1);
+        }
+        long length = file.length();
+        try (TrainingLog log = new TrainingLog(file)) {
+            log.append("He is smart".split(" "), 3);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(length + 12);
+            raf.write('X');
+        }
+        assertEquals(1, replay().size());
+    }
+
+    @Test
+    public void reopeningTruncatesTornTailBeforeAppending() throws IOException {
+        try (TrainingLog log = new TrainingLog(file)) {
+            log.append("She is stupid".split(" "), 1);
+            log.append("He is smart".split(" "), 3);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+        try (TrainingLog log = new TrainingLog(file)) {
+            log.append("It is red".split(" "), 2);
+        }
+        List<String> replayed = replay();
+        assertEquals(2, replayed.size());
+        assertEquals("She is stupid:1", replayed.get(0));
+        assertEquals("It is red:2", replayed.get(1));
+    }
+
+    @Test
+    public void groupCommitKeepsEveryAppend() throws Exception {
+        final int threads = 8;
+        final int appends = 200;
+        try (final TrainingLog log = new TrainingLog(file)) {
+            List<Thread> workers = new ArrayList<>();
+            final List<Throwable> errors = new ArrayList<>();
+            for (int i = 0; i < threads; ++i) {
+                Thread worker = new Thread(() -> {
+                    try {
+                        for (int j = 0; j < appends; ++j) {
+                            log.append("She is".split(" "), 1);
+                        }
+                    } catch (IOException e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                });
+                workers.add(worker);
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            assertTrue(errors.isEmpty());
+        }
+        assertEquals(threads * appends, replay().size());
+    }
+
+    @Test
+    public void failedLogRejectsLaterAppends() throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        channel.close();
+        TrainingLog log = new TrainingLog(file, channel);
+        long ticket = log.enqueue("She is".split(" "), 1);
+        try {
+            log.commit(ticket);
+            fail("commit on a closed channel must fail");
+        } catch (IOException expected) {
+            // expected
+        }
+        try {
+            log.enqueue("He is".split(" "), 1);
+            fail("a failed log must reject appends");
+        } catch (IOException expected) {
+            // expected
+        }
+        try {
+            log.commit(ticket);
+            fail("a failed log must not acknowledge commits");
+        } catch (IOException expected) {
+            // expected
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptySequenceIsRejected() throws IOException {
+        try (TrainingLog log = new TrainingLog(file)) {
+            log.append(new String[0], 1);
+        }
+    }
+
+    @Test
+    public void nullOrEmptyWordsAreRejected() throws IOException {
+        try (TrainingLog log = new TrainingLog(file)) {
+            String[][] invalid = {" She is".split(" "), {"She", null}, {"She", ""}};
+            for (String[] wordSeq : invalid) {
+                try {
+                    log.append(wordSeq, 1);
+                    fail("must reject " + Arrays.toString(wordSeq));
+                } catch (IllegalArgumentException expected) {
+                    // expected
+                }
+            }
+        }
+        assertEquals(0, replay().size());
+    }
+
+    private List<String> replay() throws IOException {
+        final List<String> replayed = new ArrayList<>();
+        TrainingLog.replay(file, (wordSeq, incr) ->
+            replayed.add(String.join(" ", wordSeq) + ":" + incr));
+        return replayed;
+    }
+}
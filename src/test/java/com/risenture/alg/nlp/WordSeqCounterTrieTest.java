@@ -10,9 +10,13 @@ import static org.junit.Assert.*;
  */
 public class WordSeqCounterTrieTest {
 
+    private WordSeqCounterTrie trie;
+
     @Before
     public void setup() {
-
+        trie = new WordSeqCounterTrie(3);
+        trie.add("She is stupid".split(" "), 1);
+        trie.add("She is not stupid".split(" "), 2);
     }
 
     @Test
@@ -20,4 +24,14 @@ public class WordSeqCounterTrieTest {
 
     }
 
+    @Test
+    public void navigateStopsAtFirstMissingWord() {
+        assertNotNull(trie.navigate("She is".split(" ")));
+        assertNull(trie.navigate("She xyz is".split(" ")));
+        assertNull(trie.navigate("She is stupid extra".split(" ")));
+        assertNull(trie.navigate(new String[0]));
+        assertEquals(0, trie.count("She xyz is".split(" ")));
+        assertEquals(3, trie.count("She is".split(" ")));
+    }
+
 }